@@ -0,0 +1,8 @@
+package org.netresearch.amqblobspring;
+
+/**
+ * Implemented by blob input streams that can be released without counting the download as done
+ */
+interface Abortable {
+  void abort();
+}
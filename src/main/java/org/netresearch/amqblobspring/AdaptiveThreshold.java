@@ -0,0 +1,151 @@
+package org.netresearch.amqblobspring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the content length threshold from which blobs are created between the configured bounds.
+ * <p>
+ * Inline sends, blob staging and blob downloads are each modelled as {@code cost = fixed + perByte * length},
+ * fitted over an exponentially decaying window of the measured samples. The threshold moves towards the length
+ * at which the inline cost exceeds the staging plus download cost.
+ * <p>
+ * Every {@value #PROBE_INTERVAL}th content length near the threshold is sent the other way (within the bounds), so that
+ * both models keep getting samples even when the threshold sits at one of the bounds.
+ */
+class AdaptiveThreshold {
+  private static final Logger log = LoggerFactory.getLogger(AdaptiveThreshold.class);
+
+  private static final int MIN_SAMPLES = 5;
+
+  static final int PROBE_INTERVAL = 20;
+
+  private final long lowerBound;
+  private final long upperBound;
+  private final AtomicLong threshold;
+  private final AtomicLong probes = new AtomicLong(0);
+
+  private final CostModel inline;
+  private final CostModel staging;
+  private final CostModel download;
+
+  AdaptiveThreshold(long initial, long lowerBound, long upperBound, int window) {
+    if (lowerBound > upperBound) {
+      throw new IllegalArgumentException("Lower bound " + lowerBound + " exceeds upper bound " + upperBound);
+    }
+    this.lowerBound = lowerBound;
+    this.upperBound = upperBound;
+    this.threshold = new AtomicLong(clamp(initial));
+    double decay = 1.0 - 1.0 / Math.max(window, 1);
+    this.inline = new CostModel(decay);
+    this.staging = new CostModel(decay);
+    this.download = new CostModel(decay);
+  }
+
+  long get() {
+    return threshold.get();
+  }
+
+  /**
+   * @param measured If an inline send of the content would be measured - otherwise inline isn't probed, as it would
+   *                 cost a full inline send without a sample
+   * @return If a blob should be created for the content length - mostly by the threshold, but probing the other
+   * option for lengths between half and double the threshold from time to time. Probes stay within the bounds, so
+   * content of at least the upper bound is never sent inline.
+   */
+  boolean createsBlob(long length, boolean measured) {
+    long current = threshold.get();
+    boolean blob = length >= current;
+    boolean probe = blob ? measured && length < upperBound : length >= lowerBound;
+    if (probe && length >= current / 2 && length < current * 2 && probes.incrementAndGet() % PROBE_INTERVAL == 0) {
+      return !blob;
+    }
+    return blob;
+  }
+
+  void recordInline(long length, long nanos) {
+    inline.add(length, nanos);
+    update();
+  }
+
+  void recordStaging(long length, long nanos) {
+    staging.add(length, nanos);
+    update();
+  }
+
+  void recordDownload(long length, long nanos) {
+    download.add(length, nanos);
+    update();
+  }
+
+  private void update() {
+    double[] inlineCost = inline.fit();
+    double[] downloadCost = download.fit();
+    if (inlineCost == null || downloadCost == null) {
+      return;
+    }
+    // Blobs created from paths are not staged, so staging only adds to the cost once it was measured
+    double[] stagingCost = staging.fit();
+    double blobFixed = downloadCost[0] + (stagingCost == null ? 0 : stagingCost[0]);
+    double blobPerByte = downloadCost[1] + (stagingCost == null ? 0 : stagingCost[1]);
+
+    long target;
+    if (inlineCost[1] <= blobPerByte) {
+      target = upperBound;
+    } else {
+      target = clamp((long) ((blobFixed - inlineCost[0]) / (inlineCost[1] - blobPerByte)));
+    }
+
+    // Only move halfway per sample to damp outliers
+    long previous = threshold.getAndUpdate(current -> current + (target - current) / 2);
+    if (previous != threshold.get()) {
+      log.debug("Adjusted blob threshold from {} to {}", previous, threshold.get());
+    }
+  }
+
+  private long clamp(long value) {
+    return Math.max(lowerBound, Math.min(upperBound, value));
+  }
+
+  private static final class CostModel {
+    private final double decay;
+    private double count;
+    private double sumX;
+    private double sumY;
+    private double sumXX;
+    private double sumXY;
+    private int samples;
+
+    CostModel(double decay) {
+      this.decay = decay;
+    }
+
+    synchronized void add(long length, long nanos) {
+      count = count * decay + 1;
+      sumX = sumX * decay + length;
+      sumY = sumY * decay + nanos;
+      sumXX = sumXX * decay + (double) length * length;
+      sumXY = sumXY * decay + (double) length * nanos;
+      samples++;
+    }
+
+    /**
+     * @return {fixed nanos, nanos per byte} or null if there are not enough samples yet
+     */
+    synchronized double[] fit() {
+      if (samples < MIN_SAMPLES || sumX <= 0) {
+        return null;
+      }
+      double variance = count * sumXX - sumX * sumX;
+      if (variance <= 1e-9 * sumXX * count) {
+        // All samples of (almost) the same length - assume the cost is proportional to the length
+        return new double[]{0, sumY / sumX};
+      }
+      double slope = (count * sumXY - sumX * sumY) / variance;
+      double intercept = (sumY - slope * sumX) / count;
+      return new double[]{Math.max(intercept, 0), Math.max(slope, 0)};
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package org.netresearch.amqblobspring;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+class ArenaEntry implements BlobEntry {
+  private final String id;
+  private final ArenaStore.Slice slice;
+  private final int expectedDownloads;
+  private final Consumer<ArenaEntry> onClose;
+  private final AtomicInteger doneDownloads = new AtomicInteger(0);
+  private final AtomicInteger runningDownloads = new AtomicInteger(0);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final AtomicBoolean released = new AtomicBoolean(false);
+  private final ScheduledFuture<?> expiry;
+
+  ArenaEntry(String id, long ttl, ArenaStore.Slice slice, int expectedDownloads, ScheduledExecutorService scheduler,
+             Consumer<ArenaEntry> onClose) {
+    this.id = id;
+    this.slice = slice;
+    this.expectedDownloads = expectedDownloads;
+    this.onClose = onClose;
+    expiry = scheduler.scheduleAtFixedRate(() -> {
+      if (runningDownloads.get() == 0) {
+        close();
+      }
+    }, ttl, ttl, TimeUnit.SECONDS);
+  }
+
+  private void close() {
+    if (closed.compareAndSet(false, true)) {
+      expiry.cancel(false);
+      onClose.accept(this);
+      releaseIfIdle();
+    }
+  }
+
+  private void releaseIfIdle() {
+    // The slice may be handed out again as soon as it's released, so wait for running downloads
+    if (closed.get() && runningDownloads.get() == 0 && released.compareAndSet(false, true)) {
+      slice.release();
+    }
+  }
+
+  @Override
+  public boolean hasId(String id) {
+    return this.id.equals(id);
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    runningDownloads.incrementAndGet();
+    if (closed.get()) {
+      runningDownloads.decrementAndGet();
+      releaseIfIdle();
+      return null;
+    }
+    return new SliceInputStream();
+  }
+
+  @Override
+  public long getContentLength() {
+    return slice.getLength();
+  }
+
+  private class SliceInputStream extends InputStream implements Abortable {
+    private final ByteBuffer buffer = slice.getBuffer();
+    private final AtomicBoolean streamClosed = new AtomicBoolean(false);
+
+    SliceInputStream() {
+      slice.beginRead();
+    }
+
+    @Override
+    public int read() {
+      return !streamClosed.get() && buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (streamClosed.get() || !buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public void abort() {
+      if (streamClosed.compareAndSet(false, true)) {
+        slice.endRead();
+        runningDownloads.decrementAndGet();
+        releaseIfIdle();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (!streamClosed.compareAndSet(false, true)) {
+        return;
+      }
+      slice.endRead();
+      if (doneDownloads.incrementAndGet() == expectedDownloads) {
+        ArenaEntry.this.close();
+      }
+      runningDownloads.decrementAndGet();
+      releaseIfIdle();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package org.netresearch.amqblobspring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Packs blobs into preallocated, memory mapped segment files instead of creating one file per blob.
+ * <p>
+ * Blobs are appended to the active segment. A segment is reset once all of its blobs were released - the active one
+ * in place, sealed ones by moving them to a small pool of free segments (or handing them to the {@link FileReclaimer}
+ * when the pool is full).
+ * <p>
+ * Mappings can only be released by the garbage collector, so a surplus segment is deleted - and its capacity released -
+ * once its buffer was collected. Until then it still counts against {@code amq.blob.capacity}.
+ */
+class ArenaStore {
+  private static final Logger log = LoggerFactory.getLogger(ArenaStore.class);
+
+  private static final int MAX_FREE_SEGMENTS = 2;
+
+  private static final Cleaner unmapped = Cleaner.create();
+
+  private final BlobDirectories directories;
+  private final FileReclaimer reclaimer;
+  private final int segmentSize;
+
+  private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "blob-arena-ttl");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Set<Segment> sealed = new HashSet<>();
+  // Released segments waiting for their mapping to be collected
+  private final Set<Path> surplus = ConcurrentHashMap.newKeySet();
+  private final Deque<Segment> free = new ArrayDeque<>();
+  private Segment active;
+
+  ArenaStore(BlobDirectories directories, FileReclaimer reclaimer, long segmentSize) {
+    if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+    }
+    this.directories = directories;
+    this.reclaimer = reclaimer;
+    this.segmentSize = (int) segmentSize;
+    // Entries mostly close before their TTL, so don't keep their cancelled tasks around until then
+    scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Shared by all entries instead of a timer thread per blob
+   */
+  ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  boolean fits(long length) {
+    return length <= segmentSize;
+  }
+
+  /**
+   * Copies the contents into a segment - the returned slice must be released once it's not needed anymore.
+   */
+  Slice store(byte[] contents) throws IOException {
+    if (!fits(contents.length)) {
+      throw new IllegalArgumentException("Content length " + contents.length + " exceeds segment size");
+    }
+    Slice slice = allocate(contents.length);
+    // The reservation keeps the segment from being reset, so the copy doesn't need the lock
+    ByteBuffer buffer = slice.segment.buffer.duplicate();
+    buffer.position(slice.offset);
+    buffer.put(contents);
+    return slice;
+  }
+
+  private synchronized Slice allocate(int length) throws IOException {
+    if (active == null || active.position + length > segmentSize) {
+      if (active != null) {
+        sealed.add(active);
+      }
+      active = free.isEmpty() ? createSegment() : free.poll();
+    }
+    Slice slice = new Slice(active, active.position, length);
+    active.position += length;
+    active.live++;
+    return slice;
+  }
+
+  private synchronized void release(Segment segment) {
+    if (--segment.live > 0) {
+      return;
+    }
+    segment.position = 0;
+    if (segment == active || !sealed.remove(segment)) {
+      return;
+    }
+    if (free.size() < MAX_FREE_SEGMENTS) {
+      free.add(segment);
+    } else {
+      // Deleting a mapped file would free its capacity while the disk space is still taken, so wait for the mapping
+      // to be collected - the reclaimer then releases the capacity, and doesn't hold the lock while unlinking
+      Path path = segment.path;
+      surplus.add(path);
+      unmapped.register(segment.buffer, () -> {
+        if (surplus.remove(path)) {
+          reclaimer.reclaim(path);
+        }
+      });
+    }
+  }
+
+  synchronized void close() {
+    scheduler.shutdownNow();
+    if (active != null) {
+      delete(active);
+      active = null;
+    }
+    sealed.forEach(this::delete);
+    sealed.clear();
+    free.forEach(this::delete);
+    free.clear();
+    // Shutting down, so don't wait for the surplus segments to be unmapped
+    surplus.removeIf(path -> {
+      delete(path);
+      return true;
+    });
+  }
+
+  synchronized int getSegmentCount() {
+    return sealed.size() + free.size() + (active == null ? 0 : 1);
+  }
+
+  private Segment createSegment() throws IOException {
+    return directories.write("arena-" + UUID.randomUUID(), segmentSize, path -> {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        // The mapping stays valid after the channel is closed
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        log.info("Created segment {}", path);
+        return new Segment(path, buffer);
+      }
+    });
+  }
+
+  private void delete(Segment segment) {
+    delete(segment.path);
+  }
+
+  private void delete(Path path) {
+    try {
+      // The mapping itself is released when the buffer is garbage collected
+      Files.delete(path);
+      directories.release(path);
+      log.info("Deleted segment {}", path);
+    } catch (IOException e) {
+      log.error("Error while deleting segment {}", path, e);
+    }
+  }
+
+  private static final class Segment {
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private int position;
+    private int live;
+
+    Segment(Path path, MappedByteBuffer buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+  }
+
+  final class Slice {
+    private final Segment segment;
+    private final int offset;
+    private final int length;
+
+    private Slice(Segment segment, int offset, int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    int getLength() {
+      return length;
+    }
+
+    ByteBuffer getBuffer() {
+      return segment.buffer.duplicate().position(offset).limit(offset + length).slice();
+    }
+
+    void release() {
+      ArenaStore.this.release(segment);
+    }
+
+    void beginRead() {
+      directories.beginRead(segment.path);
+    }
+
+    void endRead() {
+      directories.endRead(segment.path);
+    }
+  }
+}
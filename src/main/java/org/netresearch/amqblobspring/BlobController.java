@@ -1,40 +1,286 @@
 package org.netresearch.amqblobspring;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 public class BlobController {
+  private static final Logger log = LoggerFactory.getLogger(BlobController.class);
+
+  private static final int BUFFER_SIZE = 8192;
+
+  static final String FORWARDED_HEADER = "X-Blob-Forwarded";
+
+  enum Routing {
+    REDIRECT, PROXY;
+
+    static Routing parse(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
   @Autowired
   private BlobRegistry registry;
 
+  @Value("${amq.blob.download.idle:0}")
+  private long idleTimeout;
+
+  @Value("${amq.blob.download.timeout:0}")
+  private long totalTimeout;
+
+  @Value("${amq.blob.routing:redirect}")
+  private String routingName;
+
+  @Value("${amq.blob.proxy.connect:5}")
+  private long connectTimeout;
+
+  private HttpClient httpClient;
+
+  private final Timer watchdog = new Timer("blob-download-watchdog", true);
+
+  @Value("${amq.blob.download.threads:64}")
+  private int downloadThreads;
+
+  private ThreadPoolExecutor downloads;
+
+  private Routing routing;
+
+  @PostConstruct
+  void init() {
+    routing = Routing.parse(routingName);
+    httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(connectTimeout)).build();
+    // Downloads beyond the limit wait for a thread, so stalled consumers can't take more threads than that
+    downloads = new ThreadPoolExecutor(downloadThreads, downloadThreads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "blob-download");
+      thread.setDaemon(true);
+      return thread;
+    });
+    downloads.allowCoreThreadTimeOut(true);
+  }
+
+  @PreDestroy
+  void destroy() {
+    watchdog.cancel();
+    downloads.shutdownNow();
+  }
+
   @GetMapping("/blob/{id}")
-  public void getFile(HttpServletResponse response, @PathVariable String id) throws IOException {
+  public DeferredResult<Void> getFile(HttpServletResponse response, @PathVariable String id,
+                                      @RequestHeader(value = FORWARDED_HEADER, required = false) String forwarded)
+      throws IOException {
     final BlobEntry entry = registry.getEntry(id);
 
     if (entry == null) {
+      // Requests already routed by a peer aren't routed again to avoid loops between misconfigured nodes
+      URI owner = forwarded == null ? registry.getOwnerUrl(id) : null;
+      if (owner == null) {
+        response.sendError(HttpStatus.FORBIDDEN.value(), "Forbidden");
+        return null;
+      }
+      if (routing == Routing.PROXY) {
+        return proxy(response, id, owner.resolve("/blob/" + id));
+      }
+      response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+      response.setHeader(HttpHeaders.LOCATION, owner.resolve("/blob/" + id).toString());
+      return null;
+    }
+
+    final InputStream in = entry.getInputStream();
+    if (in == null) {
       response.sendError(HttpStatus.FORBIDDEN.value(), "Forbidden");
-      return;
+      return null;
+    }
+    return send(response, id, in, entry.getContentLength(), true);
+  }
+
+  private DeferredResult<Void> proxy(HttpServletResponse response, String id, URI location) throws IOException {
+    HttpRequest.Builder request = HttpRequest.newBuilder(location).header(FORWARDED_HEADER, "true").GET();
+    // The watchdog only starts with the body, so the response headers are bounded by the request timeout
+    long headerTimeout = idleTimeout > 0 ? idleTimeout : totalTimeout;
+    if (headerTimeout > 0) {
+      request.timeout(Duration.ofSeconds(headerTimeout));
+    }
+    HttpResponse<InputStream> ownerResponse;
+    try {
+      ownerResponse = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting " + location);
+    } catch (HttpTimeoutException e) {
+      log.error("Timed out requesting {}", location, e);
+      response.sendError(HttpStatus.GATEWAY_TIMEOUT.value(), "Gateway Timeout");
+      return null;
+    } catch (IOException e) {
+      log.error("Error while requesting {}", location, e);
+      response.sendError(HttpStatus.BAD_GATEWAY.value(), "Bad Gateway");
+      return null;
     }
 
-    long contentLength = entry.getContentLength();
+    InputStream in = ownerResponse.body();
+    if (ownerResponse.statusCode() != HttpStatus.OK.value()) {
+      in.close();
+      response.sendError(ownerResponse.statusCode());
+      return null;
+    }
+    // The owner records the cost of its own downloads
+    return send(response, id, in, ownerResponse.headers().firstValueAsLong(HttpHeaders.CONTENT_LENGTH).orElse(-1),
+        false);
+  }
+
+  /**
+   * Without timeouts, the blob is copied on the container thread. With {@code amq.blob.download.idle} or
+   * {@code amq.blob.download.timeout}, it's copied on a separate thread, so that a stalled consumer doesn't hold a
+   * container thread. Then an aborted download completes the request with an error, which makes the container close
+   * the connection.
+   */
+  private DeferredResult<Void> send(HttpServletResponse response, String id, InputStream in, long contentLength,
+                                    boolean record) throws IOException {
     if (contentLength > -1) {
       response.setContentLengthLong(contentLength);
     }
     response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
 
-    try (InputStream in = entry.getInputStream(); OutputStream out = response.getOutputStream()) {
-      StreamUtils.copy(in, out);
+    if (idleTimeout <= 0 && totalTimeout <= 0) {
+      long start = System.nanoTime();
+      try (in; OutputStream out = response.getOutputStream()) {
+        long length = in.transferTo(out);
+        out.flush();
+        if (record) {
+          registry.recordDownload(length, System.nanoTime() - start);
+        }
+      }
+      return null;
+    }
+
+    // The watchdog enforces the timeouts - the request timeout is only a fallback (0 disables it)
+    DeferredResult<Void> result = new DeferredResult<>(totalTimeout > 0 ? (totalTimeout + 1) * 1000 : 0L);
+    Transfer transfer = new Transfer(id, in, result);
+    result.onTimeout(() -> transfer.abort("exceeded the request timeout"));
+    downloads.execute(() -> {
+      long start = System.nanoTime();
+      try (in) {
+        OutputStream out = response.getOutputStream();
+        long length = copy(transfer, out);
+        out.flush();
+        if (record) {
+          registry.recordDownload(length, System.nanoTime() - start);
+        }
+        result.setResult(null);
+      } catch (IOException | RuntimeException e) {
+        result.setErrorResult(e);
+      }
+    });
+    return result;
+  }
+
+  private long copy(Transfer transfer, OutputStream out) throws IOException {
+    InputStream in = transfer.in;
+    watchdog.schedule(transfer, 1000, 1000);
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long length = 0;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        transfer.checkAborted();
+        out.write(buffer, 0, read);
+        if (in instanceof Following && ((Following) in).isCaughtUp()) {
+          // Nothing more to send until the source grows - don't hold back what was read so far
+          out.flush();
+        }
+        length += read;
+        transfer.lastProgress = System.nanoTime();
+      }
+      transfer.checkAborted();
+      return length;
+    } catch (IOException e) {
+      transfer.checkAborted();
+      throw e;
+    } finally {
+      transfer.cancel();
+    }
+  }
+
+  /**
+   * Aborts the download when it made no progress for {@code amq.blob.download.idle} seconds or took longer than
+   * {@code amq.blob.download.timeout} seconds - the input stream is released without counting the download as done,
+   * so it can be retried, and the request is completed with an error, so the container closes the connection even
+   * while the copying thread is blocked writing to a consumer that stopped reading.
+   */
+  private class Transfer extends TimerTask {
+    private final String id;
+    private final InputStream in;
+    private final DeferredResult<Void> result;
+    private final long start = System.nanoTime();
+    private volatile long lastProgress = start;
+    private volatile boolean aborted;
+
+    Transfer(String id, InputStream in, DeferredResult<Void> result) {
+      this.id = id;
+      this.in = in;
+      this.result = result;
+    }
+
+    @Override
+    public void run() {
+      long now = System.nanoTime();
+      if (idleTimeout > 0 && now - lastProgress > idleTimeout * 1_000_000_000L) {
+        abort("stalled for more than " + idleTimeout + " seconds");
+      } else if (totalTimeout > 0 && now - start > totalTimeout * 1_000_000_000L) {
+        abort("took more than " + totalTimeout + " seconds");
+      }
+    }
+
+    private void abort(String reason) {
+      cancel();
+      aborted = true;
+      log.warn("Aborting download of {} as it {}", id, reason);
+      if (in instanceof Abortable) {
+        ((Abortable) in).abort();
+      } else {
+        try {
+          in.close();
+        } catch (IOException e) {
+          log.error("Error while closing download of {}", id, e);
+        }
+      }
+      result.setErrorResult(new IOException("Download of " + id + " aborted as it " + reason));
+    }
+
+    void checkAborted() throws IOException {
+      if (aborted) {
+        throw new IOException("Download of " + id + " aborted");
+      }
     }
   }
 }
@@ -0,0 +1,192 @@
+package org.netresearch.amqblobspring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Places the files written by the registry on one of several directories and fails over to the others when writing
+ * to a directory fails.
+ */
+class BlobDirectories {
+  private static final Logger log = LoggerFactory.getLogger(BlobDirectories.class);
+
+  private static final long FAILURE_BACKOFF = 30_000_000_000L;
+
+  enum Placement {
+    ROUND_ROBIN, LEAST_USED, LEAST_IO;
+
+    static Placement parse(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+  }
+
+  interface Writer<T> {
+    T write(Path path) throws IOException;
+  }
+
+  private final List<Volume> volumes = new ArrayList<>();
+  private final Placement placement;
+  private final long capacity;
+  private final AtomicInteger next = new AtomicInteger(0);
+  private final Map<Path, Long> lengths = new ConcurrentHashMap<>();
+
+  /**
+   * @param capacity Maximum number of bytes to place in each directory or 0 for no limit
+   */
+  BlobDirectories(List<Path> dirs, Placement placement, long capacity) {
+    if (dirs.isEmpty()) {
+      throw new IllegalArgumentException("At least one directory is required");
+    }
+    dirs.forEach(dir -> volumes.add(new Volume(dir)));
+    this.placement = placement;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Lets the writer create the file in the first directory that accepts it, trying the next one on failure
+   *
+   * @return Whatever the writer returned
+   */
+  <T> T write(String name, long length, Writer<T> writer) throws IOException {
+    IOException failure = null;
+    for (Volume volume : candidates(length)) {
+      if (!volume.reserve(length)) {
+        continue;
+      }
+      Path path = volume.dir.resolve(name);
+      volume.inFlight.incrementAndGet();
+      try {
+        T result = writer.write(path);
+        volume.failed = false;
+        lengths.put(path, length);
+        return result;
+      } catch (IOException e) {
+        log.error("Error while writing {} - trying next directory", path, e);
+        volume.used.addAndGet(-length);
+        volume.failedAt = System.nanoTime();
+        volume.failed = true;
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+          // The directory is failing anyway
+        }
+        failure = e;
+      } finally {
+        volume.inFlight.decrementAndGet();
+      }
+    }
+    throw failure != null ? failure : new IOException("No directory left to store " + length + " bytes");
+  }
+
+  /**
+   * Frees the capacity taken by a file previously created with {@link #write(String, long, Writer)} - other paths
+   * are ignored
+   */
+  void release(Path path) {
+    Long length = lengths.remove(path);
+    if (length == null) {
+      return;
+    }
+    Volume volume = volume(path);
+    if (volume != null) {
+      volume.used.addAndGet(-length);
+    }
+  }
+
+  private Volume volume(Path path) {
+    Path dir = path.getParent();
+    for (Volume volume : volumes) {
+      if (volume.dir.equals(dir)) {
+        return volume;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Counts a download of the file as outstanding I/O on its directory until {@link #endRead(Path)} is called - other
+   * paths are ignored
+   */
+  void beginRead(Path path) {
+    Volume volume = volume(path);
+    if (volume != null) {
+      volume.inFlight.incrementAndGet();
+    }
+  }
+
+  void endRead(Path path) {
+    Volume volume = volume(path);
+    if (volume != null) {
+      volume.inFlight.decrementAndGet();
+    }
+  }
+
+  long getUsedBytes(Path dir) {
+    return volumes.stream().filter(volume -> volume.dir.equals(dir)).mapToLong(volume -> volume.used.get()).sum();
+  }
+
+  private List<Volume> candidates(long length) {
+    List<Volume> candidates = new ArrayList<>(volumes.size());
+    int start = placement == Placement.ROUND_ROBIN ? Math.floorMod(next.getAndIncrement(), volumes.size()) : 0;
+    for (int i = 0; i < volumes.size(); i++) {
+      Volume volume = volumes.get((start + i) % volumes.size());
+      if (volume.accepts(length)) {
+        candidates.add(volume);
+      }
+    }
+    if (placement == Placement.LEAST_USED) {
+      candidates.sort(Comparator.comparingLong(volume -> volume.used.get()));
+    } else if (placement == Placement.LEAST_IO) {
+      candidates.sort(Comparator.<Volume>comparingInt(volume -> volume.inFlight.get())
+          .thenComparingLong(volume -> volume.used.get()));
+    }
+    return candidates;
+  }
+
+  private final class Volume {
+    private final Path dir;
+    private final AtomicLong used = new AtomicLong(0);
+    // Writes and downloads in progress
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private volatile long failedAt;
+    private volatile boolean failed;
+
+    Volume(Path dir) {
+      this.dir = dir;
+    }
+
+    boolean accepts(long length) {
+      if (failed && System.nanoTime() - failedAt < FAILURE_BACKOFF) {
+        return false;
+      }
+      return capacity <= 0 || used.get() + length <= capacity;
+    }
+
+    /**
+     * Adds the length to the used bytes unless that would exceed the capacity - concurrent writers can't overshoot
+     */
+    boolean reserve(long length) {
+      while (true) {
+        long current = used.get();
+        if (capacity > 0 && current + length > capacity) {
+          return false;
+        }
+        if (used.compareAndSet(current, current + length)) {
+          return true;
+        }
+      }
+    }
+  }
+}
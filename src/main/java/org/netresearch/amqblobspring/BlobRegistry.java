@@ -6,24 +6,31 @@ import org.apache.activemq.blob.BlobUploader;
 import org.apache.activemq.command.ActiveMQBlobMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StreamUtils;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.jms.BytesMessage;
 import jakarta.jms.JMSException;
 import jakarta.jms.Message;
+import jakarta.jms.MessageProducer;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
 
 @Service
 public class BlobRegistry {
@@ -40,24 +47,154 @@ public class BlobRegistry {
   private long blobMinLength;
 
   @Value("${amq.blob.dir:${java.io.tmpdir}}")
-  private Path dir;
+  private String[] dirs;
+
+  @Value("${amq.blob.placement:round-robin}")
+  private String placement;
+
+  @Value("${amq.blob.capacity:0}")
+  private long dirCapacity;
+
+  @Value("${amq.blob.node:}")
+  private String node;
+
+  @Value("${amq.blob.peers:}")
+  private String[] peers;
+
+  @Value("${amq.blob.chunk:0}")
+  private int chunkSize;
+
+  @Value("${amq.blob.adaptive.enabled:false}")
+  private boolean adaptive;
+
+  @Value("${amq.blob.adaptive.min:#{64*1024}}")
+  private long adaptiveMinLength;
+
+  @Value("${amq.blob.adaptive.max:#{64*1024*1024}}")
+  private long adaptiveMaxLength;
+
+  @Value("${amq.blob.adaptive.window:100}")
+  private int adaptiveWindow;
+
+  @Value("${amq.blob.arena.enabled:false}")
+  private boolean arenaEnabled;
+
+  @Value("${amq.blob.arena.segment:#{64*1024*1024}}")
+  private long arenaSegmentSize;
+
+  @Value("${amq.blob.arena.max:#{16*1024*1024}}")
+  private long arenaMaxLength;
 
   private final Collection<BlobEntry> entries = new CopyOnWriteArrayList<>();
 
+  private final Map<String, URI> peerUrls = new HashMap<>();
+
+  private AdaptiveThreshold adaptiveThreshold;
+
+  private BlobDirectories directories;
+
+  private ArenaStore arena;
+
+  private FileReclaimer reclaimer;
+
+  @PostConstruct
+  void init() {
+    if (node.contains(".") || node.contains("/")) {
+      throw new IllegalArgumentException("amq.blob.node must not contain '.' or '/': " + node);
+    }
+    for (String peer : peers) {
+      if (peer.isBlank()) {
+        continue;
+      }
+      String[] nodeAndUrl = peer.split("=", 2);
+      if (nodeAndUrl.length != 2) {
+        throw new IllegalArgumentException("Expected amq.blob.peers entries like node=url but got " + peer);
+      }
+      peerUrls.put(nodeAndUrl[0].trim(), URI.create(nodeAndUrl[1].trim()));
+    }
+    directories = new BlobDirectories(
+        Arrays.stream(dirs).map(String::trim).map(Paths::get).collect(Collectors.toList()),
+        BlobDirectories.Placement.parse(placement),
+        dirCapacity
+    );
+    reclaimer = new FileReclaimer(directories::release);
+    if (adaptive) {
+      adaptiveThreshold = new AdaptiveThreshold(blobMinLength, adaptiveMinLength, adaptiveMaxLength, adaptiveWindow);
+    }
+    if (arenaEnabled) {
+      arena = new ArenaStore(directories, reclaimer, arenaSegmentSize);
+    }
+  }
+
+  @PreDestroy
+  void destroy() {
+    if (arena != null) {
+      arena.close();
+    }
+    reclaimer.close();
+  }
+
+  /**
+   * @return The content length from which blobs are currently created - changes over time when
+   * {@code amq.blob.adaptive.enabled} is {@code true}
+   */
+  public long getBlobMinLength() {
+    return adaptiveThreshold == null ? blobMinLength : adaptiveThreshold.get();
+  }
+
+  /**
+   * @return The number of files waiting to be deleted in the background
+   */
+  public int getReclaimBacklog() {
+    return reclaimer.getBacklog();
+  }
+
+  /**
+   * @return The number of files which repeatedly failed to be deleted and are only retried every 10 minutes (included
+   * in the backlog) - their capacity stays reserved until they are deleted
+   */
+  public int getReclaimAbandoned() {
+    return reclaimer.getAbandoned();
+  }
+
+  /**
+   * @return The base URL of the peer owning the blob with the given id or null when it's owned by this node or the
+   * owner is unknown
+   */
+  URI getOwnerUrl(String id) {
+    int separator = id.indexOf('.');
+    if (separator < 1) {
+      return null;
+    }
+    String owner = id.substring(0, separator);
+    return owner.equals(node) ? null : peerUrls.get(owner);
+  }
+
+  void recordDownload(long length, long nanos) {
+    if (adaptiveThreshold != null) {
+      adaptiveThreshold.recordDownload(length, nanos);
+    }
+  }
+
   BlobEntry getEntry(String id) {
     return entries.stream().filter(blobEntry -> blobEntry.hasId(id)).findFirst().orElse(null);
   }
 
   public Message createMessage(ActiveMQSession session, Path path, int expectedDownloads)
       throws JMSException, IOException {
-    if (!blobsEnabled || path.toFile().length() < blobMinLength) {
+    return createMessage(session, path, expectedDownloads, false);
+  }
+
+  private Message createMessage(ActiveMQSession session, Path path, int expectedDownloads, boolean measured)
+      throws JMSException, IOException {
+    if (!blobsEnabled || !createsBlob(path.toFile().length(), measured)) {
       BytesMessage message = session.createBytesMessage();
       message.writeBytes(Files.readAllBytes(path));
       Files.delete(path);
       return message;
     }
 
-    return createMessage(session, UUID.randomUUID().toString(), path, expectedDownloads);
+    return createMessage(session, newId(), path, expectedDownloads, null);
   }
 
   public Message createMessage(ActiveMQSession session, Path path) throws JMSException, IOException {
@@ -69,42 +206,185 @@ public class BlobRegistry {
   }
 
   public Message createMessage(ActiveMQSession session, byte[] contents, int expectedDownloads) throws JMSException, IOException {
-    if (!blobsEnabled || contents.length < blobMinLength) {
+    return createMessage(session, contents, expectedDownloads, false);
+  }
+
+  /**
+   * @param measured If an inline message is sent by {@link #send(MessageProducer, Message, long)}, so that inline
+   *                 can be probed with {@code amq.blob.adaptive.enabled}
+   */
+  private Message createMessage(ActiveMQSession session, byte[] contents, int expectedDownloads, boolean measured)
+      throws JMSException, IOException {
+    if (!blobsEnabled || !createsBlob(contents.length, measured)) {
       BytesMessage message = session.createBytesMessage();
       message.writeBytes(contents);
       return message;
     }
-    String id = UUID.randomUUID().toString();
-    Path path = dir.resolve(id);
-    Files.copy(new ByteArrayInputStream(contents), path);
+    String id = newId();
+    long start = System.nanoTime();
+    if (arena != null && contents.length <= arenaMaxLength && arena.fits(contents.length)) {
+      ArenaStore.Slice slice = arena.store(contents);
+      recordStaging(contents.length, System.nanoTime() - start);
+      entries.add(new ArenaEntry(id, ttl, slice, expectedDownloads, arena.getScheduler(), entries::remove));
+      return createMessage(session, id);
+    }
+    Path path = directories.write(id, contents.length, target -> {
+      Files.copy(new ByteArrayInputStream(contents), target);
+      return target;
+    });
+    recordStaging(contents.length, System.nanoTime() - start);
     System.out.println("Send: " + path);
-    return createMessage(session, id, path, expectedDownloads);
+    return createMessage(session, id, path, expectedDownloads, null);
   }
 
   public Message createMessage(ActiveMQSession session, InputStream inputStream) throws JMSException {
     if (!blobsEnabled) {
       try {
-        try (InputStream in = inputStream; ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-          StreamUtils.copy(in, out);
-          return createMessage(session, out.toByteArray());
+        try (InputStream in = inputStream) {
+          return createMessage(session, in.readAllBytes());
         }
       } catch (IOException e) {
         throw new JMSException("Error while reading the input stream: " + e);
       }
     }
-    String id = UUID.randomUUID().toString();
+    String id = newId();
     entries.add(new StreamEntry(id, ttl, inputStream, entries::remove));
     return createMessage(session, id);
   }
 
-  private Message createMessage(ActiveMQSession session, String id, Path path, int expectedDownloads)
+  /**
+   * Creates a blob message for a file that is still being written - downloads are sent with chunked encoding and
+   * follow the file until {@link GrowingBlob#complete()} is called. As the content length isn't known upfront,
+   * this requires {@code amq.blob.enabled} and ignores {@code amq.blob.min}.
+   */
+  public Message createMessage(ActiveMQSession session, GrowingBlob blob, int expectedDownloads) throws JMSException {
+    if (!blobsEnabled) {
+      throw new JMSException("Growing blobs require amq.blob.enabled");
+    }
+    return createMessage(session, newId(), blob.getPath(), expectedDownloads, blob);
+  }
+
+  public Message createMessage(ActiveMQSession session, GrowingBlob blob) throws JMSException {
+    return createMessage(session, blob, 1);
+  }
+
+  /**
+   * Sends the contents like {@link #createMessage(ActiveMQSession, byte[])} - with {@code amq.blob.adaptive.enabled}
+   * the duration of sending inline messages is measured to adjust the threshold.
+   */
+  public void send(ActiveMQSession session, MessageProducer producer, byte[] contents)
+      throws JMSException, IOException {
+    send(producer, createMessage(session, contents, 1, true), contents.length);
+  }
+
+  /**
+   * Sends the contents of the file like {@link #createMessage(ActiveMQSession, Path)} - but when blobs are disabled
+   * and {@code amq.blob.chunk} is set, the file is streamed as a sequence of BytesMessages to be read with
+   * {@link ChunkedMessageInputStream} instead of loading it into memory at once. With
+   * {@code amq.blob.adaptive.enabled} the duration of sending inline messages is measured to adjust the threshold.
+   */
+  public void send(ActiveMQSession session, MessageProducer producer, Path path) throws JMSException, IOException {
+    if (blobsEnabled || chunkSize <= 0) {
+      long length = Files.size(path);
+      send(producer, createMessage(session, path, 1, true), length);
+      return;
+    }
+    send(session, producer, Files.newInputStream(path));
+    Files.delete(path);
+  }
+
+  /**
+   * Sends the contents of the stream like {@link #createMessage(ActiveMQSession, InputStream)} - but when blobs are
+   * disabled and {@code amq.blob.chunk} is set, the stream is sent in chunks of that size as a message group to be
+   * read with {@link ChunkedMessageInputStream} instead of loading it into memory at once.
+   */
+  public void send(ActiveMQSession session, MessageProducer producer, InputStream inputStream) throws JMSException {
+    if (blobsEnabled || chunkSize <= 0) {
+      producer.send(createMessage(session, inputStream));
+      return;
+    }
+
+    String groupId = UUID.randomUUID().toString();
+    byte[] buffer = new byte[chunkSize];
+    int index = 0;
+    boolean last = false;
+    try (PushbackInputStream in = new PushbackInputStream(inputStream)) {
+      do {
+        int length = in.readNBytes(buffer, 0, buffer.length);
+        int next = in.read();
+        last = next == -1;
+        if (!last) {
+          in.unread(next);
+        }
+        BytesMessage message = createChunk(session, groupId, ++index, last);
+        message.writeBytes(buffer, 0, length);
+        producer.send(message);
+      } while (!last);
+    } catch (IOException e) {
+      if (index > 0 && !last) {
+        // Close the group, so the broker doesn't keep it pinned and the reader fails instead of waiting for its timeout
+        BytesMessage message = createChunk(session, groupId, index + 1, true);
+        message.setBooleanProperty(ChunkedMessageInputStream.ABORTED, true);
+        producer.send(message);
+      }
+      throw new JMSException("Error while reading the input stream: " + e);
+    }
+  }
+
+  private static BytesMessage createChunk(ActiveMQSession session, String groupId, int index, boolean last)
       throws JMSException {
+    BytesMessage message = session.createBytesMessage();
+    message.setBooleanProperty(ChunkedMessageInputStream.CHUNKED, true);
+    message.setStringProperty(ChunkedMessageInputStream.GROUP_ID, groupId);
+    message.setIntProperty(ChunkedMessageInputStream.GROUP_SEQ, last ? -1 : index);
+    message.setIntProperty(ChunkedMessageInputStream.CHUNK_INDEX, index);
+    return message;
+  }
+
+  /**
+   * Sends the message and measures the duration for inline messages - this includes waiting for the broker for
+   * synchronous (e.g. persistent) sends, which is the cost a blob would have saved
+   */
+  private void send(MessageProducer producer, Message message, long length) throws JMSException {
+    long start = System.nanoTime();
+    producer.send(message);
+    if (!(message instanceof ActiveMQBlobMessage)) {
+      recordInline(length, System.nanoTime() - start);
+    }
+  }
+
+  private boolean createsBlob(long length, boolean measured) {
+    return adaptiveThreshold == null ? length >= blobMinLength : adaptiveThreshold.createsBlob(length, measured);
+  }
+
+  /**
+   * Ids are prefixed with the node (if configured), so that other nodes can route downloads to the owner
+   */
+  private String newId() {
+    String uuid = UUID.randomUUID().toString();
+    return node.isEmpty() ? uuid : node + "." + uuid;
+  }
+
+  private void recordInline(long length, long nanos) {
+    if (adaptiveThreshold != null && blobsEnabled) {
+      adaptiveThreshold.recordInline(length, nanos);
+    }
+  }
+
+  private void recordStaging(long length, long nanos) {
+    if (adaptiveThreshold != null) {
+      adaptiveThreshold.recordStaging(length, nanos);
+    }
+  }
+
+  private Message createMessage(ActiveMQSession session, String id, Path path, int expectedDownloads,
+                                GrowingBlob growing) throws JMSException {
     FileEntry fileEntry = (FileEntry) entries.stream().filter(
         fe -> fe instanceof FileEntry && ((FileEntry) fe).getPath().equals(path)
     ).findFirst().orElse(null);
 
     if (fileEntry == null) {
-      fileEntry = new FileEntry(path, ttl, entries::remove);
+      fileEntry = new FileEntry(path, ttl, directories, reclaimer, entries::remove, growing);
       entries.add(fileEntry);
     }
 
@@ -0,0 +1,111 @@
+package org.netresearch.amqblobspring;
+
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import jakarta.jms.MessageConsumer;
+import jakarta.jms.MessageListener;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Wraps the consumer that {@link ChunkedMessageInputStream}s receive their following chunks from, so that messages
+ * received in between - chunks of other groups sent concurrently to the same destination or plain messages - are kept
+ * instead of being lost.
+ * <p>
+ * The receive methods return kept messages first, in the order they were received. At most {@code maxKept} messages
+ * are kept - receiving a chunk fails instead of keeping more, so the heap taken stays bounded by the prefetch limit
+ * plus {@code maxKept} times the chunk size, whatever the size of the contents.
+ */
+public class ChunkedMessageConsumer implements MessageConsumer {
+  public static final int DEFAULT_MAX_KEPT = 100;
+
+  private final MessageConsumer consumer;
+  private final int maxKept;
+  private final Deque<Message> kept = new ArrayDeque<>();
+
+  public ChunkedMessageConsumer(MessageConsumer consumer) {
+    this(consumer, DEFAULT_MAX_KEPT);
+  }
+
+  /**
+   * @param maxKept Maximum number of messages to keep while waiting for chunks
+   */
+  public ChunkedMessageConsumer(MessageConsumer consumer, int maxKept) {
+    this.consumer = consumer;
+    this.maxKept = maxKept;
+  }
+
+  @Override
+  public Message receive() throws JMSException {
+    return kept.isEmpty() ? consumer.receive() : kept.poll();
+  }
+
+  @Override
+  public Message receive(long timeout) throws JMSException {
+    return kept.isEmpty() ? consumer.receive(timeout) : kept.poll();
+  }
+
+  @Override
+  public Message receiveNoWait() throws JMSException {
+    return kept.isEmpty() ? consumer.receiveNoWait() : kept.poll();
+  }
+
+  /**
+   * @return The next chunk of the group or null if none was received within the timeout - other messages received
+   * meanwhile are kept
+   * @throws JMSException When the chunk isn't received before {@code maxKept} messages are kept
+   */
+  Message receiveChunk(String groupId, long timeout) throws JMSException {
+    for (Iterator<Message> iterator = kept.iterator(); iterator.hasNext(); ) {
+      Message message = iterator.next();
+      if (isChunkOf(message, groupId)) {
+        iterator.remove();
+        return message;
+      }
+    }
+
+    long deadline = System.currentTimeMillis() + timeout;
+    while (true) {
+      if (kept.size() >= maxKept) {
+        // Don't receive what couldn't be kept
+        throw new JMSException("Kept " + maxKept + " messages while waiting for a chunk of " + groupId
+            + " - too many groups are sent to the destination at once");
+      }
+      long remaining = deadline - System.currentTimeMillis();
+      Message message = remaining > 0 ? consumer.receive(remaining) : null;
+      if (message == null || isChunkOf(message, groupId)) {
+        return message;
+      }
+      kept.add(message);
+    }
+  }
+
+  private static boolean isChunkOf(Message message, String groupId) throws JMSException {
+    return ChunkedMessageInputStream.isChunked(message)
+        && groupId.equals(message.getStringProperty(ChunkedMessageInputStream.GROUP_ID));
+  }
+
+  @Override
+  public String getMessageSelector() throws JMSException {
+    return consumer.getMessageSelector();
+  }
+
+  @Override
+  public MessageListener getMessageListener() {
+    return null;
+  }
+
+  /**
+   * Not supported, as a listener would bypass the kept messages
+   */
+  @Override
+  public void setMessageListener(MessageListener listener) throws JMSException {
+    throw new jakarta.jms.IllegalStateException("Chunked messages can only be received synchronously");
+  }
+
+  @Override
+  public void close() throws JMSException {
+    consumer.close();
+  }
+}
@@ -0,0 +1,127 @@
+package org.netresearch.amqblobspring;
+
+import jakarta.jms.BytesMessage;
+import jakarta.jms.JMSException;
+import jakarta.jms.Message;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reassembles the contents of messages sent with {@link BlobRegistry#send(org.apache.activemq.ActiveMQSession,
+ * jakarta.jms.MessageProducer, InputStream)}, receiving the following chunks from the consumer as they are read.
+ * <p>
+ * Plain {@link BytesMessage}s are read as they are, so consumers don't need to tell them apart. Other messages received
+ * while waiting for a chunk are kept by the {@link ChunkedMessageConsumer} for its next receive.
+ * <p>
+ * Reading fails when a chunk is missing or the sender aborted the group, e.g. because its source failed.
+ */
+public class ChunkedMessageInputStream extends InputStream {
+  static final String CHUNKED = "amqBlobChunked";
+  static final String GROUP_ID = "JMSXGroupID";
+  static final String GROUP_SEQ = "JMSXGroupSeq";
+  static final String CHUNK_INDEX = "amqBlobChunkIndex";
+  static final String ABORTED = "amqBlobChunkAborted";
+
+  private final ChunkedMessageConsumer consumer;
+  private final long timeout;
+  private final String groupId;
+  private int sequence;
+  private boolean last;
+  private byte[] chunk;
+  private int position;
+
+  /**
+   * @param consumer The consumer to receive the following chunks from
+   * @param first    The first message received from the consumer
+   * @param timeout  Milliseconds to wait for each following chunk
+   */
+  public ChunkedMessageInputStream(ChunkedMessageConsumer consumer, Message first, long timeout)
+      throws JMSException {
+    if (!(first instanceof BytesMessage)) {
+      throw new JMSException("Expected a BytesMessage but got " + first);
+    }
+    this.consumer = consumer;
+    this.timeout = timeout;
+    if (isChunked(first)) {
+      groupId = first.getStringProperty(GROUP_ID);
+      accept(first);
+    } else {
+      groupId = null;
+      last = true;
+      chunk = readBody((BytesMessage) first);
+    }
+  }
+
+  public static boolean isChunked(Message message) throws JMSException {
+    return message.propertyExists(CHUNKED) && message.getBooleanProperty(CHUNKED);
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return chunk[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(len, chunk.length - position);
+    System.arraycopy(chunk, position, b, off, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return chunk == null ? 0 : chunk.length - position;
+  }
+
+  /**
+   * @return false if all chunks were read
+   */
+  private boolean fill() throws IOException {
+    while (chunk.length == position) {
+      if (last) {
+        return false;
+      }
+      try {
+        Message message = consumer.receiveChunk(groupId, timeout);
+        if (message == null) {
+          throw new IOException("Timed out waiting for chunk " + (sequence + 1) + " of " + groupId);
+        }
+        accept(message);
+      } catch (JMSException e) {
+        throw new IOException("Error while receiving chunk " + (sequence + 1) + " of " + groupId, e);
+      }
+    }
+    return true;
+  }
+
+  private void accept(Message message) throws JMSException {
+    if (message.propertyExists(ABORTED) && message.getBooleanProperty(ABORTED)) {
+      throw new JMSException("The sender aborted " + groupId + " after " + sequence + " chunks");
+    }
+    // Every chunk carries its index, as the last one has the sequence -1 to close the message group
+    int index = message.propertyExists(CHUNK_INDEX) ? message.getIntProperty(CHUNK_INDEX) : -1;
+    if (index != sequence + 1) {
+      throw new JMSException("Expected chunk " + (sequence + 1) + " of " + groupId + " but got " + index);
+    }
+    sequence++;
+    last = message.getIntProperty(GROUP_SEQ) == -1;
+    chunk = readBody((BytesMessage) message);
+    position = 0;
+  }
+
+  private static byte[] readBody(BytesMessage message) throws JMSException {
+    byte[] body = new byte[(int) message.getBodyLength()];
+    message.readBytes(body);
+    return body;
+  }
+}
@@ -7,7 +7,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Timer;
@@ -25,7 +25,10 @@ class FileEntry implements BlobEntry {
 
   private final Collection<String> ids = new CopyOnWriteArraySet<>();
   private final long ttl;
+  private final BlobDirectories directories;
+  private final FileReclaimer reclaimer;
   private final Consumer<FileEntry> onDeletion;
+  private final GrowingBlob growing;
   private final AtomicInteger expectedDownloads = new AtomicInteger(0);
   private final AtomicInteger doneDownloads = new AtomicInteger(0);
   private final AtomicInteger runningDownloads = new AtomicInteger(0);
@@ -33,10 +36,14 @@ class FileEntry implements BlobEntry {
 
   private final AtomicReference<Timer> timer = new AtomicReference<>();
 
-  FileEntry(Path path, long ttl, Consumer<FileEntry> onDeletion) {
+  FileEntry(Path path, long ttl, BlobDirectories directories, FileReclaimer reclaimer, Consumer<FileEntry> onDeletion,
+            GrowingBlob growing) {
     this.path = path;
     this.ttl = ttl;
+    this.directories = directories;
+    this.reclaimer = reclaimer;
     this.onDeletion = onDeletion;
+    this.growing = growing;
   }
 
   private void scheduleDeletion() {
@@ -46,6 +53,10 @@ class FileEntry implements BlobEntry {
     timer.get().schedule(new TimerTask() {
       @Override
       public void run() {
+        // A growing file is kept until it's complete, as it may still be written to
+        if (growing != null && !growing.isComplete()) {
+          return;
+        }
         if (expected == expectedDownloads.get() && runningDownloads.get() == 0 && !deleted.get()) {
           close(true);
         }
@@ -87,38 +98,115 @@ class FileEntry implements BlobEntry {
 
   @Override
   public long getContentLength() {
+    if (growing != null && !growing.isComplete()) {
+      return -1;
+    }
     return path.toFile().length();
   }
 
   private void close(boolean delete) {
-    if (deleted.get()) {
+    if (!deleted.compareAndSet(false, true)) {
       return;
     }
-    deleted.set(true);
-    try {
-      if (delete) {
-        Files.delete(path);
-      }
-      onDeletion.accept(this);
-      unscheduleDeletion();
-      log.info("Deleted {}", path);
-    } catch (IOException e) {
-      log.error("Error while deleting {}", path, e);
-      deleted.set(false);
+    onDeletion.accept(this);
+    unscheduleDeletion();
+    if (delete) {
+      // The file is deleted in the background, so the download returns as soon as the bytes are flushed
+      reclaimer.reclaim(path);
+    } else {
+      // The file is kept (e.g. it vanished or is owned by the caller), but its capacity must not stay reserved
+      directories.release(path);
+      log.info("Closed {}", path);
     }
   }
 
-  class DeleteOnCloseFileInputStream extends FileInputStream {
+  class DeleteOnCloseFileInputStream extends FileInputStream implements Abortable, Following {
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
     DeleteOnCloseFileInputStream() throws FileNotFoundException {
       super(path.toFile());
       runningDownloads.incrementAndGet();
+      directories.beginRead(path);
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (true) {
+        boolean complete = growing == null || growing.isComplete();
+        int read = super.read();
+        if (read != -1 || complete) {
+          return read;
+        }
+        growing.awaitGrowth();
+      }
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+      return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      // Completion is checked before reading, so that the bytes written before completing aren't missed
+      while (true) {
+        boolean complete = growing == null || growing.isComplete();
+        int read = super.read(b, off, len);
+        if (read != -1 || complete) {
+          return read;
+        }
+        growing.awaitGrowth();
+      }
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+      if (growing == null) {
+        return super.transferTo(out);
+      }
+      long transferred = 0;
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = read(buffer, 0, buffer.length)) != -1) {
+        out.write(buffer, 0, read);
+        if (isCaughtUp()) {
+          // Pass the tail on right away instead of waiting for the buffer to fill up
+          out.flush();
+        }
+        transferred += read;
+      }
+      return transferred;
+    }
+
+    @Override
+    public boolean isCaughtUp() throws IOException {
+      return growing != null && !growing.isComplete() && available() == 0;
+    }
+
+    @Override
+    public void abort() {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        super.close();
+      } catch (IOException e) {
+        log.error("Error while closing {}", path, e);
+      } finally {
+        directories.endRead(path);
+        runningDownloads.decrementAndGet();
+      }
     }
 
     @Override
     public void close() throws IOException {
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
       try {
         super.close();
       } finally {
+        directories.endRead(path);
         if (doneDownloads.incrementAndGet() == expectedDownloads.get()) {
           FileEntry.this.close(true);
         }
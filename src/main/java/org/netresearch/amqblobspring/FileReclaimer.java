@@ -0,0 +1,165 @@
+package org.netresearch.amqblobspring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Deletes files on a background thread, so that downloads don't wait for the unlink.
+ * <p>
+ * Files are deleted in batches of whatever is due. Failed deletions are retried with exponential backoff. Files still
+ * failing after {@value #MAX_ATTEMPTS} attempts are counted as abandoned, and retried every
+ * {@value #ABANDONED_BACKOFF}ms - their capacity stays reserved, as they still take the disk space.
+ */
+class FileReclaimer {
+  private static final Logger log = LoggerFactory.getLogger(FileReclaimer.class);
+
+  private static final int BATCH_SIZE = 64;
+  private static final int MAX_ATTEMPTS = 10;
+  private static final long INITIAL_BACKOFF = 1000;
+  private static final long MAX_BACKOFF = 60_000;
+  private static final long ABANDONED_BACKOFF = 600_000;
+
+  private final DelayQueue<Pending> queue = new DelayQueue<>();
+  private final AtomicInteger inProgress = new AtomicInteger(0);
+  private final AtomicInteger abandoned = new AtomicInteger(0);
+  private final Consumer<Path> onDeleted;
+  private final int maxAttempts;
+  private final long initialBackoff;
+  private final Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * @param onDeleted Invoked with each path after it was deleted
+   */
+  FileReclaimer(Consumer<Path> onDeleted) {
+    this(onDeleted, MAX_ATTEMPTS, INITIAL_BACKOFF);
+  }
+
+  FileReclaimer(Consumer<Path> onDeleted, int maxAttempts, long initialBackoff) {
+    this.onDeleted = onDeleted;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    thread = new Thread(this::run, "blob-reclaimer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void reclaim(Path path) {
+    queue.add(new Pending(path, 0, 0));
+  }
+
+  /**
+   * @return The number of files waiting to be deleted (including the ones waiting for a retry)
+   */
+  int getBacklog() {
+    return queue.size() + inProgress.get();
+  }
+
+  /**
+   * @return The number of files which failed to be deleted {@value #MAX_ATTEMPTS} times and are only retried slowly
+   * (included in the backlog)
+   */
+  int getAbandoned() {
+    return abandoned.get();
+  }
+
+  /**
+   * Stops the background thread and makes a last attempt to delete the remaining files
+   */
+  void close() {
+    closed = true;
+    thread.interrupt();
+    try {
+      thread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Pending> remaining = new ArrayList<>(queue);
+    queue.clear();
+    remaining.forEach(pending -> delete(pending, false));
+  }
+
+  private void run() {
+    List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+    while (!closed) {
+      try {
+        Pending first = queue.take();
+        inProgress.incrementAndGet();
+        batch.add(first);
+        inProgress.addAndGet(queue.drainTo(batch, BATCH_SIZE - 1));
+      } catch (InterruptedException e) {
+        break;
+      }
+      for (Pending pending : batch) {
+        delete(pending, true);
+        inProgress.decrementAndGet();
+      }
+      batch.clear();
+    }
+  }
+
+  private void delete(Pending pending, boolean retry) {
+    try {
+      Files.delete(pending.path);
+      log.info("Deleted {}", pending.path);
+    } catch (NoSuchFileException e) {
+      log.warn("{} was already deleted", pending.path);
+    } catch (IOException e) {
+      int attempts = pending.attempts + 1;
+      if (!retry) {
+        log.error("Error while deleting {} - giving up after {} attempts", pending.path, attempts, e);
+        return;
+      }
+      long backoff;
+      if (attempts < maxAttempts) {
+        backoff = Math.min(initialBackoff << (attempts - 1), MAX_BACKOFF);
+      } else {
+        if (attempts == maxAttempts) {
+          abandoned.incrementAndGet();
+        }
+        backoff = ABANDONED_BACKOFF;
+      }
+      log.error("Error while deleting {} - retrying in {}ms", pending.path, backoff, e);
+      queue.add(new Pending(pending.path, attempts, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff)));
+      return;
+    }
+    if (pending.attempts >= maxAttempts) {
+      abandoned.decrementAndGet();
+    }
+    onDeleted.accept(pending.path);
+  }
+
+  private static final class Pending implements Delayed {
+    private final Path path;
+    private final int attempts;
+    private final long due;
+
+    Pending(Path path, int attempts, long due) {
+      this.path = path;
+      this.attempts = attempts;
+      this.due = due;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return due == 0 ? 0 : unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+}
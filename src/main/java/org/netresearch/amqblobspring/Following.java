@@ -0,0 +1,13 @@
+package org.netresearch.amqblobspring;
+
+import java.io.IOException;
+
+/**
+ * Implemented by blob input streams that follow a source while it's still being written
+ */
+interface Following {
+  /**
+   * @return If everything written to the source so far was read, while more may follow
+   */
+  boolean isCaughtUp() throws IOException;
+}
@@ -0,0 +1,48 @@
+package org.netresearch.amqblobspring;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+
+/**
+ * Handle for a file that is still being written while its blob message is already sent.
+ * <p>
+ * Downloads follow the file as it grows until {@link #complete()} is called.
+ */
+public class GrowingBlob {
+  private static final long POLL_INTERVAL = 50;
+
+  private final Path path;
+  private volatile boolean complete;
+
+  public GrowingBlob(Path path) {
+    this.path = path;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Marks the file as completely written - call it after the last write was flushed
+   */
+  public synchronized void complete() {
+    complete = true;
+    notifyAll();
+  }
+
+  public boolean isComplete() {
+    return complete;
+  }
+
+  synchronized void awaitGrowth() throws InterruptedIOException {
+    if (complete) {
+      return;
+    }
+    try {
+      wait(POLL_INTERVAL);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + path + " to grow");
+    }
+  }
+}
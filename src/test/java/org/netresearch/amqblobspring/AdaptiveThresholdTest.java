@@ -0,0 +1,113 @@
+package org.netresearch.amqblobspring;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveThresholdTest {
+  @Test
+  public void testInitialValueIsClamped() {
+    assertEquals(100, new AdaptiveThreshold(10, 100, 1000, 10).get());
+    assertEquals(1000, new AdaptiveThreshold(10000, 100, 1000, 10).get());
+    assertEquals(500, new AdaptiveThreshold(500, 100, 1000, 10).get());
+  }
+
+  @Test
+  public void testThresholdMovesTowardsCrossover() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    // Inline: 10ns per byte, blob: 20000ns fixed + 2ns per byte => crossover at 2500 bytes
+    for (int i = 0; i < 50; i++) {
+      long length = 100 + i * 10;
+      threshold.recordInline(length, length * 10);
+      long blobLength = 3000 + i * 100;
+      threshold.recordDownload(blobLength, 20000 + blobLength * 2);
+    }
+    assertTrue(Math.abs(threshold.get() - 2500) < 10);
+  }
+
+  @Test
+  public void testThresholdMovesToUpperBoundWhenInlineIsCheaper() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    for (int i = 0; i < 50; i++) {
+      long length = 100 + i * 10;
+      threshold.recordInline(length, length);
+      long blobLength = 3000 + i * 100;
+      threshold.recordDownload(blobLength, 20000 + blobLength * 2);
+    }
+    assertTrue(threshold.get() > 99000);
+  }
+
+  @Test
+  public void testThresholdUnchangedWithoutBlobMeasurements() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    for (int i = 0; i < 50; i++) {
+      threshold.recordInline(100 + i, 1);
+    }
+    assertEquals(1000, threshold.get());
+  }
+
+  @Test
+  public void testProbesNearThresholdGoTheOtherWay() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    int blobs = 0;
+    for (int i = 0; i < AdaptiveThreshold.PROBE_INTERVAL; i++) {
+      if (threshold.createsBlob(900, true)) {
+        blobs++;
+      }
+    }
+    assertEquals(1, blobs);
+    assertTrue(threshold.createsBlob(100000, true));
+  }
+
+  @Test
+  public void testProbesStayWithinBounds() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(100000, 100, 100000, 10);
+    for (int i = 0; i < 2 * AdaptiveThreshold.PROBE_INTERVAL; i++) {
+      // Inline probes only below the upper bound
+      assertTrue(threshold.createsBlob(150000, true));
+    }
+
+    threshold = new AdaptiveThreshold(100, 100, 100000, 10);
+    for (int i = 0; i < 2 * AdaptiveThreshold.PROBE_INTERVAL; i++) {
+      // Blob probes only from the lower bound
+      assertFalse(threshold.createsBlob(60, true));
+    }
+  }
+
+  @Test
+  public void testNoInlineProbesWithoutMeasurement() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    for (int i = 0; i < 2 * AdaptiveThreshold.PROBE_INTERVAL; i++) {
+      assertTrue(threshold.createsBlob(1500, false));
+    }
+  }
+
+  @Test
+  public void testThresholdComesBackDownWhenBlobsGetCheaper() {
+    AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 100, 100000, 10);
+    Random random = new Random(42);
+
+    // Blobs are expensive: inline 10ns per byte, blob 10ms fixed + 2ns per byte => upper bound
+    simulate(threshold, random, 10_000_000);
+    assertTrue(threshold.get() > 99000);
+
+    // Only the probes near the threshold still create blobs, which are cheap now => crossover at 2500 bytes
+    simulate(threshold, random, 20000);
+    assertTrue(Math.abs(threshold.get() - 2500) < 100);
+  }
+
+  private static void simulate(AdaptiveThreshold threshold, Random random, long blobFixed) {
+    for (int i = 0; i < 10000; i++) {
+      long length = 100 + random.nextInt(99900);
+      if (threshold.createsBlob(length, true)) {
+        threshold.recordDownload(length, blobFixed + length * 2);
+      } else {
+        threshold.recordInline(length, length * 10);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.netresearch.amqblobspring;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArenaStoreTest {
+  private Path dir;
+  private BlobDirectories directories;
+  private FileReclaimer reclaimer;
+  private ArenaStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("arena");
+    directories = new BlobDirectories(List.of(dir), BlobDirectories.Placement.ROUND_ROBIN, 0);
+    reclaimer = new FileReclaimer(directories::release);
+    store = new ArenaStore(directories, reclaimer, 16);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+    reclaimer.close();
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testSlicesAreServedFromOneSegment() throws Exception {
+    ArenaStore.Slice first = store.store("Test".getBytes());
+    ArenaStore.Slice second = store.store("content".getBytes());
+
+    assertEquals("Test", toString(first.getBuffer()));
+    assertEquals("content", toString(second.getBuffer()));
+    assertEquals(1, countFiles());
+  }
+
+  @Test
+  public void testSegmentsAreReusedAfterRelease() throws Exception {
+    for (int round = 0; round < 3; round++) {
+      List<ArenaStore.Slice> slices = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        slices.add(store.store("Test content".getBytes()));
+      }
+      slices.forEach(ArenaStore.Slice::release);
+    }
+    // One active and at most two free segments are kept, the others are deleted once they were unmapped
+    assertEquals(3, store.getSegmentCount());
+    for (int i = 0; i < 100 && directories.getUsedBytes(dir) > 3 * 16; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(3, countFiles());
+    assertEquals(3 * 16, directories.getUsedBytes(dir));
+  }
+
+  @Test
+  public void testSegmentsAreDeletedOnClose() throws Exception {
+    store.store("Test content".getBytes());
+    store.close();
+    assertEquals(0, countFiles());
+  }
+
+  @Test
+  public void testEntriesExpireOnSharedScheduler() throws Exception {
+    List<ArenaEntry> closed = new CopyOnWriteArrayList<>();
+    int threads = Thread.activeCount();
+    for (int i = 0; i < 8; i++) {
+      new ArenaEntry("id" + i, 1, store.store("Test content".getBytes()), 1, store.getScheduler(), closed::add);
+    }
+    assertTrue(Thread.activeCount() - threads <= 1);
+    assertEquals(8, store.getSegmentCount());
+
+    Thread.sleep(1500);
+    assertEquals(8, closed.size());
+    // All slices were released, so only the active and two free segments are left
+    assertEquals(3, store.getSegmentCount());
+  }
+
+  private long countFiles() throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,122 @@
+package org.netresearch.amqblobspring;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.command.ActiveMQBlobMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import jakarta.jms.Connection;
+import jakarta.jms.Message;
+import jakarta.jms.Queue;
+import jakarta.jms.QueueReceiver;
+import jakarta.jms.Session;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT, properties = {
+  "amq.blob.enabled=true",
+  "amq.blob.ttl=2", // 2 seconds
+  "amq.blob.min=10", // 10 bytes
+  "amq.blob.arena.enabled=true",
+  "amq.blob.arena.segment=1024" // 1 KB
+})
+@EnableWebMvc
+@ContextConfiguration(initializers = BlobTestConfiguration.Initializer.class)
+public class BlobArenaTest {
+  @Value("nio://localhost:${jmsPort}")
+  private String amqUrl;
+
+  @Value("${server.port}")
+  private int serverPort;
+
+  @Autowired
+  private BlobRegistry registry;
+
+  private Connection connection;
+  private ActiveMQSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(amqUrl);
+    factory.getBlobTransferPolicy().setUploadUrl("http://localhost:" + serverPort);
+    connection = factory.createConnection();
+    connection.start();
+    session = (ActiveMQSession) connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testSingleBlobMessageFromArena() throws Exception {
+    ActiveMQBlobMessage message = send("Test content", 1);
+    String id = getId(message);
+    assertTrue(registry.getEntry(id) instanceof ArenaEntry);
+
+    assertEquals("Test content", StreamUtils.copyToString(message.getInputStream(), StandardCharsets.UTF_8));
+    assertNull(registry.getEntry(id));
+  }
+
+  @Test
+  public void testArenaEntryClosedAfterExpectedDownloads() throws Exception {
+    ActiveMQBlobMessage message = send("Test content", 2);
+    String id = getId(message);
+
+    assertEquals("Test content", StreamUtils.copyToString(message.getInputStream(), StandardCharsets.UTF_8));
+    assertTrue(registry.getEntry(id) instanceof ArenaEntry);
+
+    assertEquals("Test content", StreamUtils.copyToString(message.getInputStream(), StandardCharsets.UTF_8));
+    assertNull(registry.getEntry(id));
+  }
+
+  @Test
+  public void testNotFetchedArenaEntriesExpireAfterTtl() throws Exception {
+    ActiveMQBlobMessage message = send("Test content", 1);
+    String id = getId(message);
+
+    Thread.sleep(2100);
+    assertNull(registry.getEntry(id));
+    try {
+      StreamUtils.copyToString(message.getInputStream(), StandardCharsets.UTF_8);
+      fail("Expected the expired blob to be forbidden");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Server returned HTTP response code: 403"));
+    }
+  }
+
+  private ActiveMQBlobMessage send(String content, int expectedDownloads) throws Exception {
+    Queue destination = session.createQueue("test");
+    session.createProducer(destination).send(registry.createMessage(session, content.getBytes(), expectedDownloads));
+
+    QueueReceiver receiver = session.createReceiver(destination);
+    Message message = receiver.receive(500);
+    receiver.close();
+    assertTrue(message instanceof ActiveMQBlobMessage);
+    return (ActiveMQBlobMessage) message;
+  }
+
+  private static String getId(ActiveMQBlobMessage message) {
+    String url = message.getRemoteBlobUrl();
+    return url.substring(url.lastIndexOf("/") + 1);
+  }
+}
@@ -28,6 +28,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
@@ -90,8 +91,8 @@ public class BlobControllerTest {
     assertTrue(Files.exists(file));
     assertEquals(content, StreamUtils.copyToString(((ActiveMQBlobMessage) message).getInputStream(), StandardCharsets.UTF_8));
 
-    // The final deletion happens asynchronously and might be a bit delayed
-    runWithDelay(10, () -> assertFalse(Files.exists(file)));
+    // The final deletion happens in the background and might be a bit delayed
+    runWithDelay(100, () -> assertFalse(Files.exists(file)));
   }
 
   @Test
@@ -114,8 +115,8 @@ public class BlobControllerTest {
       assertEquals(content, StreamUtils.copyToString(((ActiveMQBlobMessage) message).getInputStream(), StandardCharsets.UTF_8));
     }
 
-    // The final deletion happens asynchronously and might be a bit delayed
-    runWithDelay(10, () -> assertFalse(Files.exists(file)));
+    // The final deletion happens in the background and might be a bit delayed
+    runWithDelay(100, () -> assertFalse(Files.exists(file)));
   }
 
 
@@ -182,8 +183,8 @@ public class BlobControllerTest {
     assertTrue(Files.exists(file));
     assertEquals(content, StreamUtils.copyToString(((ActiveMQBlobMessage) message).getInputStream(), StandardCharsets.UTF_8));
 
-    // The final deletion happens asynchronously and might be a bit delayed
-    runWithDelay(10, () -> assertFalse(Files.exists(file)));
+    // The final deletion happens in the background and might be a bit delayed
+    runWithDelay(100, () -> assertFalse(Files.exists(file)));
   }
 
   @Test
@@ -222,6 +223,52 @@ public class BlobControllerTest {
     assertNull(registry.getEntry(url.substring(url.lastIndexOf("/") + 1)));
   }
 
+  @Test
+  public void testGrowingBlobMessage() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    Path file = testPath.resolve(UUID.randomUUID().toString());
+    Files.write(file, "Test".getBytes());
+    GrowingBlob blob = new GrowingBlob(file);
+    session.createProducer(destination).send(registry.createMessage(session, blob));
+
+    Thread writer = new Thread(() -> {
+      try {
+        Thread.sleep(300);
+        Files.write(file, " content".getBytes(), StandardOpenOption.APPEND);
+        blob.complete();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.start();
+
+    QueueReceiver receiver = session.createReceiver(destination);
+    Message message = receiver.receive(500);
+    assertTrue(message instanceof ActiveMQBlobMessage);
+    assertEquals("Test content", StreamUtils.copyToString(((ActiveMQBlobMessage) message).getInputStream(), StandardCharsets.UTF_8));
+    writer.join();
+
+    // The final deletion happens in the background and might be a bit delayed
+    runWithDelay(100, () -> assertFalse(Files.exists(file)));
+  }
+
+  @Test
+  public void testGrowingBlobKeptUntilComplete() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    Path file = testPath.resolve(UUID.randomUUID().toString());
+    Files.write(file, "Test".getBytes());
+    GrowingBlob blob = new GrowingBlob(file);
+    session.createProducer(destination).send(registry.createMessage(session, blob));
+
+    // Still being written after the TTL
+    runWithDelay(2100, () -> assertTrue(Files.exists(file)));
+    blob.complete();
+
+    runWithDelay(2100, () -> assertFalse(Files.exists(file)));
+  }
+
   private void runWithDelay(long delay, Runnable task) throws InterruptedException {
     Thread.sleep(delay);
     task.run();
@@ -0,0 +1,122 @@
+package org.netresearch.amqblobspring;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BlobDirectoriesTest {
+  private final Path first = Paths.get("first");
+  private final Path second = Paths.get("second");
+
+  @Test
+  public void testRoundRobin() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first, second), BlobDirectories.Placement.ROUND_ROBIN, 0);
+    assertEquals(first, write(directories, 10));
+    assertEquals(second, write(directories, 10));
+    assertEquals(first, write(directories, 10));
+  }
+
+  @Test
+  public void testLeastUsed() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first, second), BlobDirectories.Placement.LEAST_USED, 0);
+    Path path = directories.write(UUID.randomUUID().toString(), 100, target -> target);
+    assertEquals(first, path.getParent());
+    assertEquals(second, write(directories, 10));
+    assertEquals(second, write(directories, 10));
+    directories.release(path);
+    assertEquals(first, write(directories, 10));
+    assertEquals(20, directories.getUsedBytes(second));
+  }
+
+  @Test
+  public void testLeastIo() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first, second), BlobDirectories.Placement.LEAST_IO, 0);
+    Path path = directories.write(UUID.randomUUID().toString(), 100, target -> target);
+    assertEquals(first, path.getParent());
+
+    // A running download of the file counts as outstanding I/O, so the bigger but idle directory is preferred
+    directories.beginRead(path);
+    assertEquals(second, write(directories, 10));
+    directories.endRead(path);
+    directories.release(path);
+    assertEquals(first, write(directories, 1));
+  }
+
+  @Test
+  public void testConcurrentWritesDontExceedCapacity() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first), BlobDirectories.Placement.ROUND_ROBIN, 50);
+    AtomicInteger written = new AtomicInteger(0);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          directories.write(UUID.randomUUID().toString(), 10, target -> {
+            try {
+              Thread.sleep(10);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+            return target;
+          });
+          written.incrementAndGet();
+        } catch (IOException | InterruptedException e) {
+          // Rejected for capacity
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(5, written.get());
+    assertEquals(50, directories.getUsedBytes(first));
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first, second), BlobDirectories.Placement.ROUND_ROBIN, 15);
+    assertEquals(first, write(directories, 10));
+    assertEquals(second, write(directories, 10));
+    try {
+      write(directories, 10);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertEquals(10, directories.getUsedBytes(first));
+    }
+  }
+
+  @Test
+  public void testFailover() throws Exception {
+    BlobDirectories directories = new BlobDirectories(List.of(first, second), BlobDirectories.Placement.ROUND_ROBIN, 0);
+    Path path = directories.write("blob", 10, target -> {
+      if (target.getParent().equals(first)) {
+        throw new IOException("Disk failure");
+      }
+      return target;
+    });
+    assertEquals(second, path.getParent());
+    assertEquals(0, directories.getUsedBytes(first));
+
+    // The failing directory is skipped for a while
+    assertEquals(second, write(directories, 10));
+    assertEquals(second, write(directories, 10));
+  }
+
+  private static Path write(BlobDirectories directories, long length) throws IOException {
+    return directories.write(UUID.randomUUID().toString(), length, Path::getParent);
+  }
+}
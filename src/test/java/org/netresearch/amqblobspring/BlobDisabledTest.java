@@ -16,16 +16,21 @@ import jakarta.jms.BytesMessage;
 import jakarta.jms.Connection;
 import jakarta.jms.JMSException;
 import jakarta.jms.Message;
+import jakarta.jms.MessageProducer;
 import jakarta.jms.Queue;
 import jakarta.jms.QueueReceiver;
 import jakarta.jms.Session;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -33,7 +38,8 @@ import static org.junit.Assert.fail;
 @SpringBootTest(properties = {
   // "amq.blob.enabled=false", // Disabled by default
   "amq.blob.ttl=2", // 2 seconds
-  "amq.blob.min=10" // 10 bytes
+  "amq.blob.min=10", // 10 bytes
+  "amq.blob.chunk=4" // 4 bytes
 })
 @ContextConfiguration(initializers = BlobTestConfiguration.Initializer.class)
 public class BlobDisabledTest {
@@ -140,6 +146,148 @@ public class BlobDisabledTest {
     assertEquals(content, getContents(message));
   }
 
+  @Test
+  public void testChunkedMessagesFromInputStream() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    String content = "Test content";
+    registry.send(session, session.createProducer(destination), new ByteArrayInputStream(content.getBytes()));
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination));
+    Message message = consumer.receive(500);
+
+    assertTrue(ChunkedMessageInputStream.isChunked(message));
+    assertEquals(4, ((BytesMessage) message).getBodyLength());
+    try (InputStream in = new ChunkedMessageInputStream(consumer, message, 500)) {
+      assertEquals(content, new String(in.readAllBytes()));
+    }
+    assertNull(consumer.receiveNoWait());
+  }
+
+  @Test
+  public void testChunkedMessagesFromFile() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    String content = "Test content!";
+    Path file = testPath.resolve(UUID.randomUUID().toString());
+    Files.write(file, content.getBytes());
+    registry.send(session, session.createProducer(destination), file);
+
+    assertFalse(Files.exists(file));
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination));
+    Message message = consumer.receive(500);
+    try (InputStream in = new ChunkedMessageInputStream(consumer, message, 500)) {
+      assertEquals(content, new String(in.readAllBytes()));
+    }
+  }
+
+  @Test
+  public void testInterleavedChunkedMessages() throws Exception {
+    Queue destination = session.createQueue("test");
+    MessageProducer producer = session.createProducer(destination);
+
+    producer.send(createChunk("a", 1, false, "Test"));
+    producer.send(createChunk("b", 1, false, "Othe"));
+    BytesMessage plain = session.createBytesMessage();
+    plain.writeBytes("Plain".getBytes());
+    producer.send(plain);
+    producer.send(createChunk("a", 2, false, " con"));
+    producer.send(createChunk("b", 2, true, "r"));
+    producer.send(createChunk("a", 3, true, "tent"));
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination));
+    try (InputStream in = new ChunkedMessageInputStream(consumer, consumer.receive(500), 500)) {
+      assertEquals("Test content", new String(in.readAllBytes()));
+    }
+    try (InputStream in = new ChunkedMessageInputStream(consumer, consumer.receive(500), 500)) {
+      assertEquals("Other", new String(in.readAllBytes()));
+    }
+    assertEquals("Plain", getContents(consumer.receive(500)));
+    assertNull(consumer.receiveNoWait());
+  }
+
+  @Test
+  public void testMissingChunkFails() throws Exception {
+    Queue destination = session.createQueue("test");
+    MessageProducer producer = session.createProducer(destination);
+
+    producer.send(createChunk("a", 1, false, "Test"));
+    // Chunk 2 expired
+    producer.send(createChunk("a", 3, true, "tent"));
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination));
+    try (InputStream in = new ChunkedMessageInputStream(consumer, consumer.receive(500), 500)) {
+      in.readAllBytes();
+      fail("Expected the missing chunk to fail the read");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testAbortedChunkedSendFails() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    InputStream failing = new SequenceInputStream(new ByteArrayInputStream("Test content".getBytes()),
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("Source failed");
+          }
+        });
+    try {
+      registry.send(session, session.createProducer(destination), failing);
+      fail("Expected the send to fail");
+    } catch (JMSException e) {
+      // Expected
+    }
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination));
+    long start = System.currentTimeMillis();
+    try (InputStream in = new ChunkedMessageInputStream(consumer, consumer.receive(500), 5000)) {
+      in.readAllBytes();
+      fail("Expected the aborted group to fail the read");
+    } catch (IOException e) {
+      // Fails with the closing chunk instead of the timeout
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    assertNull(consumer.receiveNoWait());
+  }
+
+  @Test
+  public void testKeptMessagesAreLimited() throws Exception {
+    Queue destination = session.createQueue("test");
+    MessageProducer producer = session.createProducer(destination);
+
+    producer.send(createChunk("a", 1, false, "Test"));
+    producer.send(createChunk("b", 1, false, "Othe"));
+    producer.send(createChunk("c", 1, false, "Mor"));
+    producer.send(createChunk("a", 2, true, " content"));
+
+    ChunkedMessageConsumer consumer = new ChunkedMessageConsumer(session.createReceiver(destination), 1);
+    try (InputStream in = new ChunkedMessageInputStream(consumer, consumer.receive(500), 500)) {
+      in.readAllBytes();
+      fail("Expected the read to fail instead of keeping more messages");
+    } catch (IOException e) {
+      // Expected
+    }
+    // Nothing was lost
+    assertEquals("Othe", getContents(consumer.receive(500)));
+    assertEquals("Mor", getContents(consumer.receive(500)));
+    assertTrue(ChunkedMessageInputStream.isChunked(consumer.receive(500)));
+  }
+
+  private BytesMessage createChunk(String groupId, int index, boolean last, String content) throws JMSException {
+    BytesMessage message = session.createBytesMessage();
+    message.setBooleanProperty(ChunkedMessageInputStream.CHUNKED, true);
+    message.setStringProperty(ChunkedMessageInputStream.GROUP_ID, groupId);
+    message.setIntProperty(ChunkedMessageInputStream.GROUP_SEQ, last ? -1 : index);
+    message.setIntProperty(ChunkedMessageInputStream.CHUNK_INDEX, index);
+    message.writeBytes(content.getBytes());
+    return message;
+  }
+
   private String getContents(Message message) throws JMSException {
     if (!(message instanceof BytesMessage)) {
       fail("Expected byte message");
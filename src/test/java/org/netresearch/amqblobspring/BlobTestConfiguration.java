@@ -39,7 +39,7 @@ public class BlobTestConfiguration {
       }
     }
 
-    private static int findAvailableTcpPort() {
+    static int findAvailableTcpPort() {
       try (ServerSocket socket = new ServerSocket(0)) {
         return socket.getLocalPort();
       } catch (IOException e) {
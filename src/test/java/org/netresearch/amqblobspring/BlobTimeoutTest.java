@@ -0,0 +1,171 @@
+package org.netresearch.amqblobspring;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.command.ActiveMQBlobMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import jakarta.jms.Connection;
+import jakarta.jms.Message;
+import jakarta.jms.Queue;
+import jakarta.jms.QueueReceiver;
+import jakarta.jms.Session;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT, properties = {
+  "amq.blob.enabled=true",
+  "amq.blob.ttl=10", // 10 seconds
+  "amq.blob.download.idle=1" // 1 second
+})
+@EnableWebMvc
+@ContextConfiguration(initializers = BlobTestConfiguration.Initializer.class)
+public class BlobTimeoutTest {
+  @Value("nio://localhost:${jmsPort}")
+  private String amqUrl;
+
+  @Value("${server.port}")
+  private int serverPort;
+
+  @Value("${java.io.tmpdir}")
+  private Path testPath;
+
+  @Autowired
+  private BlobRegistry registry;
+
+  private Connection connection;
+  private ActiveMQSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(amqUrl);
+    factory.getBlobTransferPolicy().setUploadUrl("http://localhost:" + serverPort);
+    connection = factory.createConnection();
+    connection.start();
+    session = (ActiveMQSession) connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testStalledDownloadIsAborted() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    StalledInputStream stream = new StalledInputStream();
+    session.createProducer(destination).send(registry.createMessage(session, stream));
+
+    QueueReceiver receiver = session.createReceiver(destination);
+    Message message = receiver.receive(500);
+    assertTrue(message instanceof ActiveMQBlobMessage);
+
+    long start = System.currentTimeMillis();
+    try {
+      StreamUtils.copyToString(((ActiveMQBlobMessage) message).getInputStream(), StandardCharsets.UTF_8);
+      fail("Expected the download to be aborted");
+    } catch (IOException e) {
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    assertTrue(stream.closed.getCount() == 0);
+
+    String url = ((ActiveMQBlobMessage) message).getRemoteBlobUrl();
+    assertNull(registry.getEntry(url.substring(url.lastIndexOf("/") + 1)));
+  }
+
+  @Test
+  public void testAbortedDownloadCanBeRetried() throws Exception {
+    Queue destination = session.createQueue("test");
+
+    // Large enough to fill the socket buffers of a consumer that stops reading
+    int length = 32 * 1024 * 1024;
+    Path file = testPath.resolve(UUID.randomUUID().toString());
+    Files.write(file, new byte[length]);
+    session.createProducer(destination).send(registry.createMessage(session, file, 1));
+
+    QueueReceiver receiver = session.createReceiver(destination);
+    Message message = receiver.receive(500);
+    assertTrue(message instanceof ActiveMQBlobMessage);
+    String url = ((ActiveMQBlobMessage) message).getRemoteBlobUrl();
+    String id = url.substring(url.lastIndexOf("/") + 1);
+
+    try (Socket socket = new Socket()) {
+      socket.setReceiveBufferSize(4096);
+      socket.connect(new InetSocketAddress("localhost", serverPort));
+      socket.getOutputStream().write(("GET /blob/" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      socket.getOutputStream().flush();
+
+      // Never reading stalls the download until the connection is closed by the server
+      socket.setSoTimeout(10_000);
+      Thread.sleep(4000);
+      InputStream in = socket.getInputStream();
+      try {
+        while (in.read(new byte[8192]) != -1) {
+          // Drain what was sent before the abort
+        }
+      } catch (SocketException e) {
+        // Reset by the server
+      }
+    }
+
+    assertTrue(Files.exists(file));
+    assertNotNull(registry.getEntry(id));
+
+    try (InputStream in = ((ActiveMQBlobMessage) message).getInputStream()) {
+      assertEquals(length, StreamUtils.copyToByteArray(in).length);
+    }
+
+    // The final deletion happens in the background and might be a bit delayed
+    Thread.sleep(100);
+    assertFalse(Files.exists(file));
+  }
+
+  private static class StalledInputStream extends InputStream {
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public int read() throws IOException {
+      try {
+        closed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new IOException("Stream closed");
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package org.netresearch.amqblobspring;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileReclaimerTest {
+  private final List<Path> deleted = new CopyOnWriteArrayList<>();
+  private FileReclaimer reclaimer;
+
+  @Before
+  public void setUp() {
+    reclaimer = new FileReclaimer(deleted::add);
+  }
+
+  @After
+  public void tearDown() {
+    reclaimer.close();
+  }
+
+  @Test
+  public void testFilesAreDeletedInBackground() throws Exception {
+    Path first = Files.createTempFile("reclaim", null);
+    Path second = Files.createTempFile("reclaim", null);
+    reclaimer.reclaim(first);
+    reclaimer.reclaim(second);
+
+    Thread.sleep(100);
+    assertFalse(Files.exists(first));
+    assertFalse(Files.exists(second));
+    assertEquals(List.of(first, second), deleted);
+    assertEquals(0, reclaimer.getBacklog());
+  }
+
+  @Test
+  public void testFailedDeletionsAreRetried() throws Exception {
+    // Deleting a directory that isn't empty fails
+    Path dir = Files.createTempDirectory("reclaim");
+    Path file = Files.createFile(dir.resolve("file"));
+    reclaimer.reclaim(dir);
+
+    Thread.sleep(100);
+    assertTrue(Files.exists(dir));
+    assertEquals(1, reclaimer.getBacklog());
+
+    Files.delete(file);
+    Thread.sleep(1500);
+    assertFalse(Files.exists(dir));
+    assertEquals(List.of(dir), deleted);
+    assertEquals(0, reclaimer.getBacklog());
+  }
+
+  @Test
+  public void testRepeatedlyFailingDeletionsAreCountedAsAbandoned() throws Exception {
+    reclaimer.close();
+    reclaimer = new FileReclaimer(deleted::add, 2, 10);
+
+    Path dir = Files.createTempDirectory("reclaim");
+    Path file = Files.createFile(dir.resolve("file"));
+    reclaimer.reclaim(dir);
+
+    Thread.sleep(200);
+    assertTrue(Files.exists(dir));
+    assertEquals(1, reclaimer.getAbandoned());
+    // Still retried slowly, so it stays in the backlog
+    assertEquals(1, reclaimer.getBacklog());
+    assertTrue(deleted.isEmpty());
+
+    Files.delete(file);
+    Files.delete(dir);
+  }
+}
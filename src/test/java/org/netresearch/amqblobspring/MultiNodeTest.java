@@ -0,0 +1,136 @@
+package org.netresearch.amqblobspring;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.command.ActiveMQBlobMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.StreamUtils;
+
+import jakarta.jms.Connection;
+import jakarta.jms.Session;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiNodeTest {
+  private final int portA = BlobTestConfiguration.Initializer.findAvailableTcpPort();
+  private final int portB = BlobTestConfiguration.Initializer.findAvailableTcpPort();
+
+  private ConfigurableApplicationContext nodeA;
+  private ConfigurableApplicationContext nodeB;
+
+  private Connection connection;
+  private ActiveMQSession session;
+
+  @Before
+  public void setUp() throws Exception {
+    String peers = "amq.blob.peers=a=http://localhost:" + portA + ",b=http://localhost:" + portB;
+    nodeA = startNode("a", portA, peers, "amq.blob.routing=redirect");
+    nodeB = startNode("b", portB, peers, "amq.blob.routing=proxy");
+
+    connection = new ActiveMQConnectionFactory("vm://multinode?broker.persistent=false&broker.useJmx=false")
+        .createConnection();
+    connection.start();
+    session = (ActiveMQSession) connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (connection != null) {
+      connection.close();
+    }
+    if (nodeA != null) {
+      nodeA.close();
+    }
+    if (nodeB != null) {
+      nodeB.close();
+    }
+  }
+
+  @Test
+  public void testIdsEncodeOwningNode() throws Exception {
+    String id = createBlob(nodeA, "Test content");
+    assertTrue(id.startsWith("a."));
+  }
+
+  @Test
+  public void testNonOwnerProxiesToOwner() throws Exception {
+    String id = createBlob(nodeA, "Test content");
+
+    HttpURLConnection connection = open(portB, id);
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(12, connection.getContentLengthLong());
+    assertEquals("Test content", StreamUtils.copyToString(connection.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testNonOwnerRedirectsToOwner() throws Exception {
+    String id = createBlob(nodeB, "Test content");
+
+    HttpURLConnection connection = open(portA, id);
+    connection.setInstanceFollowRedirects(false);
+    assertEquals(307, connection.getResponseCode());
+    assertEquals("http://localhost:" + portB + "/blob/" + id, connection.getHeaderField("Location"));
+
+    connection = open(portA, id);
+    assertEquals("Test content", StreamUtils.copyToString(connection.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testProxiedDownloadsUseDownloadTimeouts() throws Exception {
+    int portC = BlobTestConfiguration.Initializer.findAvailableTcpPort();
+    String peers = "amq.blob.peers=a=http://localhost:" + portA + ",c=http://localhost:" + portC;
+    try (ConfigurableApplicationContext nodeC = startNode("c", portC, peers, "amq.blob.routing=proxy",
+        "amq.blob.download.idle=1", "amq.blob.download.timeout=5")) {
+      String id = createBlob(nodeA, "Test content");
+
+      HttpURLConnection connection = open(portC, id);
+      assertEquals(200, connection.getResponseCode());
+      assertEquals("Test content", StreamUtils.copyToString(connection.getInputStream(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testUnknownRoutingFailsOnStartup() {
+    int portC = BlobTestConfiguration.Initializer.findAvailableTcpPort();
+    try (ConfigurableApplicationContext nodeC = startNode("c", portC, "amq.blob.routing=bounce")) {
+      fail("Expected the context to fail on the unknown routing");
+    } catch (RuntimeException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testUnknownIdsAreForbidden() throws Exception {
+    assertEquals(403, open(portA, "a.unknown").getResponseCode());
+    assertEquals(403, open(portB, "a.unknown").getResponseCode());
+    assertEquals(403, open(portB, "c.unknown").getResponseCode());
+  }
+
+  private ConfigurableApplicationContext startNode(String node, int port, String... properties) {
+    return new SpringApplicationBuilder(BlobTestConfiguration.class)
+        .properties("server.port=" + port, "amq.blob.enabled=true", "amq.blob.min=10", "amq.blob.node=" + node)
+        .properties(properties)
+        .run();
+  }
+
+  private String createBlob(ConfigurableApplicationContext node, String content) throws Exception {
+    ActiveMQBlobMessage message = (ActiveMQBlobMessage) node.getBean(BlobRegistry.class)
+        .createMessage(session, content.getBytes());
+    String url = message.getURL().toString();
+    return url.substring(url.lastIndexOf("/") + 1);
+  }
+
+  private static HttpURLConnection open(int port, String id) throws IOException {
+    return (HttpURLConnection) new URL("http://localhost:" + port + "/blob/" + id).openConnection();
+  }
+}